@@ -84,6 +84,7 @@ public class InputProcessor {
         System.out.println("Usage:");
         System.out.println("help - displays this message");
         System.out.println("get lists - displays lists");
+        System.out.println("get lists checkpoint - displays lists as of the last checkpoint (eventlog backend)");
         System.out.println("get proposals - displays proposals");
         System.out.println("get statistics - displays statistics");
         System.out.println("post list NAME MAX_SIZE - inserts a list named NAME with MAX_SIZE of places");
@@ -107,7 +108,11 @@ public class InputProcessor {
     private void executeGet(String[] commandStrings) throws BackendException, ArrayIndexOutOfBoundsException {
         switch (commandStrings[1]) {
             case "lists":
-                System.out.println(session.selectAllLists());
+                if (commandStrings.length > 2 && commandStrings[2].equals("checkpoint")) {
+                    System.out.println(session.selectAllListsFromCheckpoint());
+                } else {
+                    System.out.println(session.selectAllLists());
+                }
                 return;
             case "proposals":
                 System.out.println(session.selectAllProposals());
@@ -5,6 +5,11 @@ import java.util.Properties;
 
 import cassdemo.backend.BackendException;
 import cassdemo.backend.BackendSession;
+import cassdemo.backend.CassandraBackendSession;
+import cassdemo.backend.ConcurrencyLimiter;
+import cassdemo.backend.EventLogBackendSession;
+import cassdemo.backend.ExecutionProfiles;
+import cassdemo.backend.InMemoryBackendSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,6 +20,7 @@ public class Main {
 	public static void main(String[] args) throws IOException, BackendException {
 		String contactPoint = null;
 		String keyspace = null;
+		String backend = null;
 		Statistics statistics = new Statistics();
 
 		Properties properties = new Properties();
@@ -23,11 +29,30 @@ public class Main {
 
 			contactPoint = properties.getProperty("contact_point");
 			keyspace = properties.getProperty("keyspace");
+			backend = properties.getProperty("backend", "cassandra");
 		} catch (IOException ex) {
 			ex.printStackTrace();
 		}
 			
-		BackendSession session = new BackendSession(contactPoint, keyspace, statistics);
+		BackendSession session;
+		if ("memory".equals(backend)) {
+			session = new InMemoryBackendSession(statistics);
+		} else {
+			ExecutionProfiles profiles = new ExecutionProfiles(properties);
+			ConcurrencyLimiter limiter = profiles.buildLimiter(statistics);
+			if ("eventlog".equals(backend)) {
+				long checkpointIntervalMillis = profiles.numberProperty("eventlog.checkpoint_interval_ms", 1000L,
+						Long::valueOf);
+				long settleMillis = profiles.numberProperty("eventlog.settle_ms", 5000L, Long::valueOf);
+				profiles.checkProperty(checkpointIntervalMillis > 0, "eventlog.checkpoint_interval_ms",
+						checkpointIntervalMillis);
+				profiles.checkProperty(settleMillis > 0, "eventlog.settle_ms", settleMillis);
+				session = new EventLogBackendSession(contactPoint, keyspace, profiles, limiter, statistics,
+						checkpointIntervalMillis, settleMillis);
+			} else {
+				session = new CassandraBackendSession(contactPoint, keyspace, profiles, limiter, statistics);
+			}
+		}
 		Logger logger = LoggerFactory.getLogger(BackendSession.class);
 
 		InputProcessor inputProcessor = new InputProcessor(System.in, session, statistics);
@@ -3,6 +3,10 @@ package cassdemo;
 public class Statistics {
     private int preemptionsCount;
     private int backendExceptionCount;
+    // timeouts, overloaded coordinators and busy pools seen by the concurrency limiter
+    private int overloadCount;
+    private int shedRequestsCount;
+    private int concurrencyLimit;
 
     public Statistics(){
         preemptionsCount=0;
@@ -16,6 +20,18 @@ public class Statistics {
         ++backendExceptionCount;
     }
 
+    public synchronized void increaseOverloadCount(){
+        ++overloadCount;
+    }
+
+    public synchronized void increaseShedRequestsCount(){
+        ++shedRequestsCount;
+    }
+
+    public synchronized void setConcurrencyLimit(int concurrencyLimit){
+        this.concurrencyLimit = concurrencyLimit;
+    }
+
     public int getPreemptionsCount() {
         return this.preemptionsCount;
     }
@@ -24,11 +40,26 @@ public class Statistics {
         return this.backendExceptionCount;
     }
 
+    public int getOverloadCount() {
+        return this.overloadCount;
+    }
+
+    public int getShedRequestsCount() {
+        return this.shedRequestsCount;
+    }
+
+    public int getConcurrencyLimit() {
+        return this.concurrencyLimit;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
         sb.append("preemptionCount:\t"+preemptionsCount+"\n");
         sb.append("backenExceptionCount:\t"+backendExceptionCount+"\n");
+        sb.append("overloadCount:\t\t"+overloadCount+"\n");
+        sb.append("shedRequestsCount:\t"+shedRequestsCount+"\n");
+        sb.append("concurrencyLimit:\t"+concurrencyLimit+"\n");
         return sb.toString();
     }
 }
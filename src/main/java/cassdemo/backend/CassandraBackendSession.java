@@ -0,0 +1,325 @@
+package cassdemo.backend;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+
+import cassdemo.Statistics;
+import cassdemo.ToStringer;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * For error handling done right see: 
+ * https://www.datastax.com/dev/blog/cassandra-error-handling-done-right
+ * 
+ * Performing stress tests often results in numerous WriteTimeoutExceptions, 
+ * ReadTimeoutExceptions (thrown by Cassandra replicas) and 
+ * OpetationTimedOutExceptions (thrown by the client). Remember to retry
+ * failed operations until success (it can be done through the RetryPolicy mechanism:
+ * https://stackoverflow.com/questions/30329956/cassandra-datastax-driver-retry-policy )
+ */
+
+public class CassandraBackendSession implements BackendSession {
+
+	private static final Logger logger = LoggerFactory.getLogger(CassandraBackendSession.class);
+	private Statistics statistics;
+
+	private Session session;
+	private ExecutionProfiles profiles;
+	private ConcurrencyLimiter limiter;
+
+	public CassandraBackendSession(String contactPoint, String keyspace, ExecutionProfiles profiles,
+			ConcurrencyLimiter limiter, Statistics statistics) throws BackendException {
+		this.statistics = statistics;
+		this.profiles = profiles;
+		this.limiter = limiter;
+
+		session = profiles.connect(contactPoint, keyspace);
+		setupTables();
+		prepareStatements();
+	}
+
+	private static PreparedStatement SELECT_ALL_FROM_LISTS;
+	private static PreparedStatement SELECT_ALL_FROM_PROPOSALS;
+	private static PreparedStatement SELECT_FROM_PROPOSALS;
+	private static PreparedStatement INSERT_INTO_LISTS;
+	private static PreparedStatement INSERT_INTO_PROPOSALS;
+	private static PreparedStatement DELETE_ALL_FROM_LISTS;
+	private static PreparedStatement DELETE_ALL_FROM_PROPOSALS;
+	private static PreparedStatement INCLUDE_PROPOSAL_INTO_LIST;
+	private static PreparedStatement SELECT_OCCUPIER;
+	private static PreparedStatement SELECT_ALL_PROPOSALS_TO_LIST;
+
+	private void prepareStatements() throws BackendException {
+
+		try {
+			SELECT_ALL_FROM_LISTS = profiles.prepare(session, "select_all_from_lists", "SELECT * FROM lists;");
+			SELECT_ALL_FROM_PROPOSALS = profiles.prepare(session, "select_all_from_proposals",
+					"SELECT * FROM proposals;");
+			SELECT_FROM_PROPOSALS = profiles.prepare(session, "select_from_proposals",
+					"SELECT * FROM proposals where student_id = ? and list_name = ?;");
+
+			INSERT_INTO_LISTS = profiles.prepare(session, "insert_into_lists",
+					"INSERT INTO lists (name, max_size, students, timestamps)" +
+							"VALUES (?, ?, ?, ?);");
+			INSERT_INTO_PROPOSALS = profiles.prepare(session, "insert_into_proposals",
+					"INSERT INTO proposals (student_id, list_name, placements, sending_time)" +
+							"VALUES (?, ?, ?, ?) IF NOT EXISTS;");
+
+			DELETE_ALL_FROM_LISTS = profiles.prepare(session, "delete_all_from_lists", "TRUNCATE lists;");
+			DELETE_ALL_FROM_PROPOSALS = profiles.prepare(session, "delete_all_from_proposals", "TRUNCATE proposals;");
+
+			INCLUDE_PROPOSAL_INTO_LIST = profiles.prepare(session, "include_proposal_into_list",
+					"UPDATE lists set students[?] = ?, timestamps[?]= ? where name = ? if timestamps[?] > ?;");
+
+			SELECT_OCCUPIER = profiles.prepare(session, "select_occupier",
+					"SELECT students[?] as student FROM lists where name = ?;");
+
+			SELECT_ALL_PROPOSALS_TO_LIST = profiles.prepare(session, "select_all_proposals_to_list",
+					"select student_id from proposals where list_name = ? ALLOW FILTERING;");
+		} catch (Exception e) {
+			throw new BackendException("Could not prepare statements. " + e.getMessage() + ".", e);
+		}
+
+		logger.info("Statements prepared");
+	}
+
+	private void setupTables() throws BackendException {
+		try {
+			session.execute(
+					"CREATE TABLE IF NOT EXISTS Lists (" +
+							"name varchar," +
+							"max_size int," +
+							"students map<int, int>," +
+							"timestamps map<int, timestamp>, " +
+							"PRIMARY KEY (name)); ");
+			session.execute(
+					"CREATE TABLE IF NOT EXISTS Proposals (" +
+							" student_id int,		 " +
+							" list_name varchar,	 " +
+							" placements list<int>,  " +
+							" sending_time timestamp," +
+							" PRIMARY KEY(student_id, list_name));");
+		} catch (Exception e) {
+			throw new BackendException("Failed to initialise tables. " + e.getMessage() + ".", e);
+		}
+
+		logger.info("Tables initialised");
+	}
+
+	@Override
+	public String selectAllLists() throws BackendException {
+		BoundStatement bs = profiles.bind(SELECT_ALL_FROM_LISTS);
+
+		ResultSet rs = null;
+
+		try {
+			rs = limiter.execute(session, bs);
+		} catch (Exception e) {
+			throw new BackendException("Could not perform a query. " + e.getMessage() + ".", e);
+		}
+
+		StringBuilder sb = new StringBuilder();
+		limiter.forEachRow(rs, row -> sb.append(ToStringer.listToString(row) + "\n"));
+		return sb.toString();
+	}
+
+	@Override
+	public String selectAllProposals() throws BackendException {
+		BoundStatement bs = profiles.bind(SELECT_ALL_FROM_PROPOSALS);
+
+		ResultSet rs = null;
+
+		try {
+			rs = limiter.execute(session, bs);
+		} catch (Exception e) {
+			throw new BackendException("Could not perform a query. " + e.getMessage() + ".", e);
+		}
+
+		StringBuilder sb = new StringBuilder();
+		sb.append(ToStringer.proposalsHeader());
+		limiter.forEachRow(rs, row -> sb.append(ToStringer.proposalToString(row) + "\n"));
+		return sb.toString();
+	}
+
+	private Row selectFromProposals(int student_id, String listName) throws BackendException {
+		BoundStatement bs = profiles.bind(SELECT_FROM_PROPOSALS);
+		bs.bind().setInt(0, student_id).setString(1, listName);
+
+		ResultSet rs = null;
+		Row row = null;
+		try {
+			rs = limiter.execute(session, bs);
+		} catch (Exception e) {
+			throw new BackendException("Could not perform a query. " + e.getMessage() + ".", e);
+		}
+		row = rs.one();
+		return row;
+	}
+
+	@Override
+	public void insertList(String name, int max_size) throws BackendException {
+		BoundStatement bs = profiles.bind(INSERT_INTO_LISTS);
+		// bs.bind(name, max_size, "[]");
+		bs.bind().setString(0, name).setInt(1, max_size).setMap(2, initialStudentsMap(max_size)).setMap(3,
+				initialTimestampMap(max_size));
+
+		try {
+			limiter.execute(session, bs);
+		} catch (Exception e) {
+			throw new BackendException("Could not perform an upsert on list. " + e.getMessage() + ".", e);
+		}
+
+		logger.info("List " + name + " upserted");
+	}
+
+	@Override
+	public void insertProposal(int studentId, String listName, List<Integer> placements) throws BackendException {
+		BoundStatement bs = profiles.bind(INSERT_INTO_PROPOSALS);
+		// bs.bind(name, max_size, "[]");
+		Date timestamp = new Date(System.currentTimeMillis());
+		includeProposalIntoList(studentId, listName, placements, timestamp);
+		bs.bind().setInt(0, studentId).setString(1, listName).setList(2, placements).setTimestamp(3, timestamp);
+
+		try {
+			limiter.execute(session, bs);
+		} catch (Exception e) {
+			throw new BackendException("Could not perform an upsert on list. " + e.getMessage() + ".", e);
+		}
+
+		logger.info("Student: " + Integer.toString(studentId) + " made proposal into: " + listName);
+	}
+
+	public void includeProposalIntoList(int student_id, String listName, List<Integer> placements, Date timestamp)
+			throws BackendException {
+		BoundStatement bs = profiles.bind(INCLUDE_PROPOSAL_INTO_LIST);
+		for (int placement : placements) {
+			Integer replaced = selectOccupier(listName, placement);
+			if (replaced != null) {
+				if (replaced == student_id) {
+					return; // this student already holds this place
+				}
+			}
+			bs.bind().setInt(0, placement).setInt(1, student_id).setInt(2, placement).setTimestamp(3, timestamp)
+					.setString(4, listName).setInt(5, placement).setTimestamp(6, timestamp);
+			ResultSet rs = null;
+			try {
+				rs = limiter.execute(session, bs);
+			} catch (Exception e) {
+				throw new BackendException("Could not include proposal. " + e.getMessage() + ".", e);
+			}
+			for (Row row : rs) {
+				if (row.getBool("[applied]")) {
+					if (replaced != null) {
+						reapplyProposal(replaced, listName);
+						statistics.increasePreemptionCount();
+					}
+					return;
+				}
+			}
+		}
+		logger.info("Applied " + student_id + "'s proposal into " + listName);
+	}
+
+	@Override
+	public void deleteAllLists() throws BackendException {
+		BoundStatement bs = profiles.bind(DELETE_ALL_FROM_LISTS);
+
+		try {
+			limiter.execute(session, bs);
+		} catch (Exception e) {
+			throw new BackendException("Could not perform a delete operation on lists. " + e.getMessage() + ".", e);
+		}
+
+		logger.info("All lists deleted");
+	}
+
+	/*
+	 * Returns the first page only, read the rows with ConcurrencyLimiter.forEachRow().
+	 */
+	public ResultSet selectAllProposalsToList(String listName) throws BackendException {
+		BoundStatement bs = profiles.bind(SELECT_ALL_PROPOSALS_TO_LIST);
+		bs.bind().setString(0, listName);
+		ResultSet rs = null;
+
+		try {
+			rs = limiter.execute(session, bs);
+		} catch (Exception e) {
+			throw new BackendException("Could not perform a query. " + e.getMessage() + ".", e);
+		}
+		return rs;
+	}
+
+	@Override
+	public void reapplyProposalsToOneList(String listName) throws BackendException {
+		ResultSet rs = selectAllProposalsToList(listName);
+		limiter.forEachRow(rs, row -> reapplyProposal(row.getInt("student_id"), listName));
+	}
+
+	@Override
+	public void reapplyProposal(int student_id, String listName) throws BackendException {
+		Row proposal = selectFromProposals(student_id, listName);
+		if (proposal != null) {
+			includeProposalIntoList(student_id, listName, proposal.getList("placements", Integer.class),
+					proposal.getTimestamp("sending_time"));
+		}
+	}
+
+	private Integer selectOccupier(String listName, int listPlace) throws BackendException {
+		BoundStatement bs = profiles.bind(SELECT_OCCUPIER);
+		bs.bind().setInt(0, listPlace).setString(1, listName);
+
+		ResultSet rs = null;
+
+		try {
+			rs = limiter.execute(session, bs);
+		} catch (Exception e) {
+			throw new BackendException("Could not perform a query. " + e.getMessage() + ".", e);
+		}
+
+		Integer ret = null;
+		for (Row row : rs) {
+			ret = row.getInt("student");
+		}
+
+		return ret;
+	}
+
+	protected void finalize() {
+		try {
+			if (session != null) {
+				session.getCluster().close();
+			}
+		} catch (Exception e) {
+			logger.error("Could not close existing cluster", e);
+		}
+	}
+
+	private Map<Integer, Integer> initialStudentsMap(int max_size) {
+		return Collections.emptyMap();
+	}
+
+	private Map<Integer, Date> initialTimestampMap(int max_size) {
+		HashMap<Integer, Date> ret = new HashMap<>();
+		Date maxDate = new Date(Long.MAX_VALUE);
+		for (int i = 1; i <= max_size; ++i) {
+			ret.put(i, maxDate);
+		}
+		return ret;
+	}
+
+	@Override
+	public void increaseBackendExcepionCount() {
+		statistics.increaseBackendExcepionCount();
+	}
+}
@@ -0,0 +1,200 @@
+package cassdemo.backend;
+
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.exceptions.BusyConnectionException;
+import com.datastax.driver.core.exceptions.BusyPoolException;
+import com.datastax.driver.core.exceptions.NoHostAvailableException;
+import com.datastax.driver.core.exceptions.OperationTimedOutException;
+import com.datastax.driver.core.exceptions.OverloadedException;
+import com.datastax.driver.core.exceptions.ReadTimeoutException;
+import com.datastax.driver.core.exceptions.WriteTimeoutException;
+
+import cassdemo.Statistics;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Adaptive limit of requests in flight to the cluster, shared by every session
+ * and thread of the client (AIMD, as in TCP congestion control).
+ *
+ * Every request completed below the latency threshold while at least half of
+ * the limit was in use raises the limit by 1/limit, so by about one per
+ * limit's worth of requests. An idle or single-threaded client does not raise
+ * it, so a later burst of threads starts from a limit the cluster has
+ * sustained.
+ *
+ * A timeout, an overloaded coordinator, a full driver connection pool or a
+ * request slower than the threshold multiplies the limit by the backoff ratio,
+ * at most once per threshold period so a burst of timeouts from one overload
+ * counts once. The driver tries the next host after a client timeout, an
+ * OVERLOADED error or a busy pool, so these errors also count when they reach
+ * the caller inside a NoHostAvailableException. Every such error is counted in
+ * Statistics as an overload.
+ *
+ * Requests over the limit wait up to the queue timeout and are then shed with
+ * a BackendException, which stress tests count like any other backend failure.
+ * A completed request wakes a single waiting thread, all of them only when the
+ * limit grew.
+ */
+
+public class ConcurrencyLimiter {
+
+	private Statistics statistics;
+
+	private final int minLimit;
+	private final int maxLimit;
+	private final long latencyThresholdNanos;
+	private final double backoffRatio;
+	private final long queueTimeoutMillis;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition belowLimit = lock.newCondition();
+
+	private double limit;
+	private int inFlight;
+	private long lastDecrease;
+
+	public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, long latencyThresholdMillis,
+			double backoffRatio, long queueTimeoutMillis, Statistics statistics) {
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.latencyThresholdNanos = latencyThresholdMillis * 1000000L;
+		this.backoffRatio = backoffRatio;
+		this.queueTimeoutMillis = queueTimeoutMillis;
+		this.statistics = statistics;
+		this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+		this.lastDecrease = System.nanoTime() - latencyThresholdNanos;
+		statistics.setConcurrencyLimit((int) limit);
+	}
+
+	public interface RowConsumer {
+		void accept(Row row) throws BackendException;
+	}
+
+	/*
+	 * Executes the statement and returns its first page. Iterating over the
+	 * ResultSet would fetch further pages outside the limit, so results which
+	 * may span pages are read with forEachRow().
+	 */
+	public ResultSet execute(Session session, Statement statement) throws BackendException {
+		acquire();
+		long start = System.nanoTime();
+		boolean overloaded = false;
+		try {
+			return session.execute(statement);
+		} catch (RuntimeException e) {
+			overloaded = isOverload(e);
+			throw e;
+		} finally {
+			release(System.nanoTime() - start, overloaded);
+		}
+	}
+
+	/*
+	 * Passes every row to consumer, fetching one page at a time, each within its
+	 * own permit, so only a page of a large scan is held in memory.
+	 */
+	public void forEachRow(ResultSet rs, RowConsumer consumer) throws BackendException {
+		while (true) {
+			for (int available = rs.getAvailableWithoutFetching(); available > 0; --available) {
+				consumer.accept(rs.one());
+			}
+			if (rs.isFullyFetched()) {
+				return;
+			}
+			fetchNextPage(rs);
+		}
+	}
+
+	private void fetchNextPage(ResultSet rs) throws BackendException {
+		acquire();
+		long start = System.nanoTime();
+		boolean overloaded = false;
+		try {
+			rs.fetchMoreResults().get();
+		} catch (ExecutionException e) {
+			overloaded = isOverload(e.getCause());
+			throw new BackendException("Could not fetch the next page. " + e.getCause().getMessage() + ".", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new BackendException("Interrupted while fetching the next page", e);
+		} finally {
+			release(System.nanoTime() - start, overloaded);
+		}
+	}
+
+	private void acquire() throws BackendException {
+		lock.lock();
+		try {
+			long remaining = TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis);
+			while (inFlight >= (int) limit) {
+				if (remaining <= 0) {
+					statistics.increaseShedRequestsCount();
+					throw new BackendException("Request shed, " + inFlight + " requests in flight.");
+				}
+				try {
+					remaining = belowLimit.awaitNanos(remaining);
+				} catch (InterruptedException e) {
+					belowLimit.signal(); // pass on a wake-up this thread may have taken
+					Thread.currentThread().interrupt();
+					throw new BackendException("Interrupted while waiting for the concurrency limit", e);
+				}
+			}
+			++inFlight;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void release(long latencyNanos, boolean overloaded) {
+		lock.lock();
+		try {
+			updateLimit(latencyNanos, overloaded);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void updateLimit(long latencyNanos, boolean overloaded) {
+		int usedLimit = inFlight--;
+		int previousLimit = (int) limit;
+		long now = System.nanoTime();
+		if (overloaded || latencyNanos > latencyThresholdNanos) {
+			if (overloaded) {
+				statistics.increaseOverloadCount();
+			}
+			if (now - lastDecrease >= latencyThresholdNanos) {
+				limit = Math.max(minLimit, limit * backoffRatio);
+				lastDecrease = now;
+			}
+		} else if (usedLimit >= limit / 2) {
+			limit = Math.min(maxLimit, limit + 1.0 / limit);
+		}
+		statistics.setConcurrencyLimit((int) limit);
+		if ((int) limit > previousLimit) {
+			belowLimit.signalAll();
+		} else {
+			belowLimit.signal();
+		}
+	}
+
+	private static boolean isOverload(Throwable e) {
+		if (e instanceof NoHostAvailableException) {
+			for (Throwable hostError : ((NoHostAvailableException) e).getErrors().values()) {
+				if (isOverload(hostError)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		return e instanceof WriteTimeoutException || e instanceof ReadTimeoutException
+				|| e instanceof OperationTimedOutException || e instanceof OverloadedException
+				|| e instanceof BusyPoolException || e instanceof BusyConnectionException;
+	}
+}
@@ -0,0 +1,198 @@
+package cassdemo.backend;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Session;
+
+import cassdemo.Statistics;
+import cassdemo.ToStringer;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Alternative storage mode: every proposal is appended to list_events, a
+ * partition per list clustered by sending_time, with a plain INSERT. Placements
+ * are computed off the write path by ListMaterializer, which periodically
+ * checkpoints each list into list_checkpoints.
+ *
+ * "get lists" folds the events after the last checkpoint for an up-to-date view,
+ * "get lists checkpoint" shows the checkpoints only.
+ */
+
+public class EventLogBackendSession implements BackendSession {
+
+	private static final Logger logger = LoggerFactory.getLogger(EventLogBackendSession.class);
+	private Statistics statistics;
+
+	private Session session;
+	private ExecutionProfiles profiles;
+	private ConcurrencyLimiter limiter;
+	private ListMaterializer materializer;
+	private ScheduledExecutorService scheduler;
+
+	public EventLogBackendSession(String contactPoint, String keyspace, ExecutionProfiles profiles,
+			ConcurrencyLimiter limiter, Statistics statistics, long checkpointIntervalMillis, long settleMillis)
+			throws BackendException {
+		this.statistics = statistics;
+		this.profiles = profiles;
+		this.limiter = limiter;
+
+		session = profiles.connect(contactPoint, keyspace);
+		setupTables();
+		prepareStatements();
+
+		materializer = new ListMaterializer(session, profiles, limiter, settleMillis);
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "materializer");
+			t.setDaemon(true);
+			return t;
+		});
+		scheduler.scheduleWithFixedDelay(this::checkpoint, checkpointIntervalMillis, checkpointIntervalMillis,
+				TimeUnit.MILLISECONDS);
+	}
+
+	private static PreparedStatement SELECT_ALL_FROM_EVENTS;
+	private static PreparedStatement INSERT_INTO_EVENTS;
+
+	private void prepareStatements() throws BackendException {
+		try {
+			SELECT_ALL_FROM_EVENTS = profiles.prepare(session, "select_all_from_list_events",
+					"SELECT * FROM list_events;");
+			INSERT_INTO_EVENTS = profiles.prepare(session, "insert_into_list_events",
+					"INSERT INTO list_events (list_name, sending_time, student_id, placements)" +
+							"VALUES (?, ?, ?, ?);");
+		} catch (Exception e) {
+			throw new BackendException("Could not prepare statements. " + e.getMessage() + ".", e);
+		}
+
+		logger.info("Statements prepared");
+	}
+
+	private void setupTables() throws BackendException {
+		try {
+			session.execute(
+					"CREATE TABLE IF NOT EXISTS list_events (" +
+							" list_name varchar,	 " +
+							" sending_time timestamp," +
+							" student_id int,		 " +
+							" placements list<int>,  " +
+							" PRIMARY KEY(list_name, sending_time, student_id));");
+			session.execute(
+					"CREATE TABLE IF NOT EXISTS list_checkpoints (" +
+							"name varchar," +
+							"max_size int," +
+							"start_time timestamp," +
+							"students map<int, int>," +
+							"last_time timestamp," +
+							"last_student int," +
+							"PRIMARY KEY (name)); ");
+		} catch (Exception e) {
+			throw new BackendException("Failed to initialise tables. " + e.getMessage() + ".", e);
+		}
+
+		logger.info("Tables initialised");
+	}
+
+	/*
+	 * Runs on the scheduler, which silently stops rescheduling a task that throws,
+	 * so nothing may escape from here.
+	 */
+	private void checkpoint() {
+		try {
+			materializer.checkpointAll();
+		} catch (BackendException | RuntimeException e) {
+			logger.warn("Checkpoint failed: " + e.getMessage(), e);
+			statistics.increaseBackendExcepionCount();
+		}
+	}
+
+	@Override
+	public String selectAllLists() throws BackendException {
+		return materializer.listsToString(true);
+	}
+
+	@Override
+	public String selectAllListsFromCheckpoint() throws BackendException {
+		return materializer.listsToString(false);
+	}
+
+	@Override
+	public String selectAllProposals() throws BackendException {
+		BoundStatement bs = profiles.bind(SELECT_ALL_FROM_EVENTS);
+
+		ResultSet rs = null;
+
+		try {
+			rs = limiter.execute(session, bs);
+		} catch (Exception e) {
+			throw new BackendException("Could not perform a query. " + e.getMessage() + ".", e);
+		}
+
+		StringBuilder sb = new StringBuilder();
+		sb.append(ToStringer.proposalsHeader());
+		limiter.forEachRow(rs, row -> sb.append(ToStringer.proposalToString(row) + "\n"));
+		return sb.toString();
+	}
+
+	@Override
+	public void insertList(String name, int max_size) throws BackendException {
+		// proposals sent before the list was (re)created are not placed, as in the Cassandra path
+		materializer.reset(name, max_size, new Date(System.currentTimeMillis()));
+		logger.info("List " + name + " upserted");
+	}
+
+	@Override
+	public void insertProposal(int studentId, String listName, List<Integer> placements) throws BackendException {
+		BoundStatement bs = profiles.bind(INSERT_INTO_EVENTS);
+		Date timestamp = new Date(System.currentTimeMillis());
+		bs.bind().setString(0, listName).setTimestamp(1, timestamp).setInt(2, studentId).setList(3, placements);
+
+		try {
+			limiter.execute(session, bs);
+		} catch (Exception e) {
+			throw new BackendException("Could not append a proposal. " + e.getMessage() + ".", e);
+		}
+
+		logger.debug("Student: " + Integer.toString(studentId) + " made proposal into: " + listName);
+	}
+
+	@Override
+	public void deleteAllLists() throws BackendException {
+		materializer.deleteAll();
+		logger.info("All lists deleted");
+	}
+
+	@Override
+	public void reapplyProposalsToOneList(String listName) throws BackendException {
+		materializer.reapply(listName, null);
+	}
+
+	@Override
+	public void reapplyProposal(int student_id, String listName) throws BackendException {
+		materializer.reapply(listName, student_id);
+	}
+
+	protected void finalize() {
+		try {
+			scheduler.shutdownNow();
+			if (session != null) {
+				session.getCluster().close();
+			}
+		} catch (Exception e) {
+			logger.error("Could not close existing cluster", e);
+		}
+	}
+
+	@Override
+	public void increaseBackendExcepionCount() {
+		statistics.increaseBackendExcepionCount();
+	}
+}
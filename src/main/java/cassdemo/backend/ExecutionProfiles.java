@@ -0,0 +1,299 @@
+package cassdemo.backend;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.HostDistance;
+import com.datastax.driver.core.PoolingOptions;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ProtocolOptions;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.policies.DCAwareRoundRobinPolicy;
+import com.datastax.driver.core.policies.SpeculativeExecutionPolicy;
+import com.datastax.driver.core.policies.TokenAwarePolicy;
+
+import cassdemo.Statistics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/*
+ * Driver tuning read from config.properties.
+ *
+ * driver.* keys configure the Cluster (load balancing, compression, pooling)
+ * which connect() opens for every Cassandra backend.
+ * profile.NAME.* keys define named execution profiles and statement.STATEMENT=NAME
+ * assigns a profile to a prepared statement; statements without an assignment
+ * use the profile named "default", if there is one. Missing keys keep driver defaults.
+ *
+ * Speculative executions are decided per statement as well, but the driver only
+ * speculates on statements marked idempotent, so profiles using
+ * speculative_delay_ms must also set idempotent=true.
+ */
+
+public class ExecutionProfiles {
+
+	private static final Logger logger = LoggerFactory.getLogger(ExecutionProfiles.class);
+
+	private static final String DEFAULT_PROFILE = "default";
+
+	private Properties properties;
+	private Map<String, Profile> profiles = new HashMap<>();
+	private Map<PreparedStatement, Integer> fetchSizes = new ConcurrentHashMap<>();
+	private Map<PreparedStatement, Profile> speculativeProfiles = new ConcurrentHashMap<>();
+
+	public ExecutionProfiles(Properties properties) throws BackendException {
+		this.properties = properties;
+		for (String key : properties.stringPropertyNames()) {
+			if (key.startsWith("profile.") && key.lastIndexOf('.') > "profile.".length()) {
+				String name = key.substring("profile.".length(), key.lastIndexOf('.'));
+				if (!profiles.containsKey(name)) {
+					profiles.put(name, new Profile(name));
+				}
+			}
+		}
+	}
+
+	public Cluster buildCluster(String contactPoint) throws BackendException {
+		Cluster.Builder builder = Cluster.builder().addContactPoint(contactPoint);
+
+		// the driver's default policy is already token aware, so it is replaced either way
+		Boolean tokenAware = booleanProperty("driver.token_aware");
+		if (tokenAware == null || tokenAware) {
+			builder.withLoadBalancingPolicy(new TokenAwarePolicy(DCAwareRoundRobinPolicy.builder().build()));
+		} else {
+			builder.withLoadBalancingPolicy(DCAwareRoundRobinPolicy.builder().build());
+		}
+
+		ProtocolOptions.Compression compression = enumProperty(ProtocolOptions.Compression.class,
+				"driver.compression");
+		if (compression != null) {
+			// LZ4 needs net.jpountz.lz4 on the classpath, it comes with cassandra-all
+			try {
+				builder.withCompression(compression);
+			} catch (IllegalStateException e) {
+				throw new BackendException("Invalid value of driver.compression: " + compression + ". "
+						+ e.getMessage() + ".", e);
+			}
+		}
+
+		PoolingOptions pooling = new PoolingOptions();
+		int coreConnections = numberProperty("driver.pool.core_connections", -1, Integer::valueOf);
+		int maxConnections = numberProperty("driver.pool.max_connections", -1, Integer::valueOf);
+		if (coreConnections != -1 || maxConnections != -1) {
+			// the driver only accepts both bounds together
+			checkProperty(coreConnections > 0, "driver.pool.core_connections", coreConnections);
+			checkProperty(maxConnections >= coreConnections, "driver.pool.max_connections", maxConnections);
+			pooling.setConnectionsPerHost(HostDistance.LOCAL, coreConnections, maxConnections);
+		}
+		int maxRequests = numberProperty("driver.pool.max_requests_per_connection", -1, Integer::valueOf);
+		if (maxRequests != -1) {
+			checkProperty(maxRequests > 0, "driver.pool.max_requests_per_connection", maxRequests);
+			pooling.setMaxRequestsPerConnection(HostDistance.LOCAL, maxRequests);
+		}
+		builder.withPoolingOptions(pooling);
+
+		builder.withSpeculativeExecutionPolicy(new PerStatementSpeculativeExecutionPolicy());
+
+		logger.info("Cluster configured with profiles " + profiles.keySet());
+		return builder.build();
+	}
+
+	/*
+	 * Builds the client-side limit of requests in flight from the limiter.* keys.
+	 */
+	public ConcurrencyLimiter buildLimiter(Statistics statistics) throws BackendException {
+		int initialLimit = numberProperty("limiter.initial_limit", 32, Integer::valueOf);
+		int minLimit = numberProperty("limiter.min_limit", 4, Integer::valueOf);
+		int maxLimit = numberProperty("limiter.max_limit", 512, Integer::valueOf);
+		long latencyThresholdMillis = numberProperty("limiter.latency_threshold_ms", 200L, Long::valueOf);
+		double backoffRatio = numberProperty("limiter.backoff_ratio", 0.9, Double::valueOf);
+		long queueTimeoutMillis = numberProperty("limiter.queue_timeout_ms", 2000L, Long::valueOf);
+
+		checkProperty(minLimit >= 1, "limiter.min_limit", minLimit);
+		checkProperty(maxLimit >= minLimit, "limiter.max_limit", maxLimit);
+		// the limit is only decreased once per threshold period
+		checkProperty(latencyThresholdMillis > 0, "limiter.latency_threshold_ms", latencyThresholdMillis);
+		// 1 or more would never back off, 0 or less would drop straight to min_limit
+		checkProperty(backoffRatio > 0 && backoffRatio < 1, "limiter.backoff_ratio", backoffRatio);
+		checkProperty(queueTimeoutMillis >= 0, "limiter.queue_timeout_ms", queueTimeoutMillis);
+
+		return new ConcurrencyLimiter(initialLimit, minLimit, maxLimit, latencyThresholdMillis, backoffRatio,
+				queueTimeoutMillis, statistics);
+	}
+
+	/*
+	 * Connects to the cluster and switches to keyspace, creating it if needed.
+	 */
+	public Session connect(String contactPoint, String keyspace) throws BackendException {
+		Cluster cluster = buildCluster(contactPoint);
+		Session session;
+		try {
+			session = cluster.connect();
+			// session = cluster.connect(keyspace);
+		} catch (Exception e) {
+			throw new BackendException("Could not connect to the cluster. " + e.getMessage() + ".", e);
+		}
+		try {
+			session.execute("CREATE KEYSPACE IF NOT EXISTS " + keyspace +
+					" WITH REPLICATION = { 'class' : 'SimpleStrategy', 'replication_factor' : 3 }; ");
+			session.execute("USE " + keyspace + ";");
+		} catch (Exception e) {
+			throw new BackendException("Failed to initialise keyspace. " + e.getMessage() + ".", e);
+		}
+		return session;
+	}
+
+	/*
+	 * Prepares a statement and applies the profile assigned to statementName.
+	 */
+	public PreparedStatement prepare(Session session, String statementName, String query) {
+		PreparedStatement ps = session.prepare(query);
+		String profileName = properties.getProperty("statement." + statementName, DEFAULT_PROFILE);
+		Profile profile = profiles.get(profileName);
+		if (profile == null) {
+			if (!profileName.equals(DEFAULT_PROFILE)) {
+				logger.warn("Unknown profile " + profileName + " for statement " + statementName);
+			}
+			return ps;
+		}
+
+		if (profile.consistency != null) {
+			ps.setConsistencyLevel(profile.consistency);
+		}
+		if (profile.serialConsistency != null) {
+			ps.setSerialConsistencyLevel(profile.serialConsistency);
+		}
+		if (profile.fetchSize > 0) {
+			fetchSizes.put(ps, profile.fetchSize);
+		}
+		if (profile.idempotent != null) {
+			ps.setIdempotent(profile.idempotent);
+		}
+		if (profile.speculativeDelayMs >= 0) {
+			speculativeProfiles.put(ps, profile);
+		}
+		return ps;
+	}
+
+	/*
+	 * Fetch size cannot be set on a PreparedStatement, so it is applied to every
+	 * BoundStatement created here.
+	 */
+	public BoundStatement bind(PreparedStatement ps) {
+		BoundStatement bs = new BoundStatement(ps);
+		Integer fetchSize = fetchSizes.get(ps);
+		if (fetchSize != null) {
+			bs.setFetchSize(fetchSize);
+		}
+		return bs;
+	}
+
+	public <T extends Number> T numberProperty(String key, T defaultValue, Function<String, T> parser)
+			throws BackendException {
+		String value = properties.getProperty(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return parser.apply(value.trim());
+		} catch (NumberFormatException e) {
+			throw new BackendException("Invalid value of " + key + ": " + value + ".", e);
+		}
+	}
+
+	private Boolean booleanProperty(String key) throws BackendException {
+		String value = properties.getProperty(key);
+		if (value == null) {
+			return null;
+		}
+		if (value.trim().equalsIgnoreCase("true")) {
+			return true;
+		}
+		if (value.trim().equalsIgnoreCase("false")) {
+			return false;
+		}
+		throw new BackendException("Invalid value of " + key + ": " + value + ".");
+	}
+
+	public void checkProperty(boolean valid, String key, Object value) throws BackendException {
+		if (!valid) {
+			throw new BackendException("Invalid value of " + key + ": " + value + ".");
+		}
+	}
+
+	private <E extends Enum<E>> E enumProperty(Class<E> type, String key) throws BackendException {
+		String value = properties.getProperty(key);
+		if (value == null) {
+			return null;
+		}
+		try {
+			return Enum.valueOf(type, value.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new BackendException("Invalid value of " + key + ": " + value + ".", e);
+		}
+	}
+
+	private class Profile {
+		ConsistencyLevel consistency;
+		ConsistencyLevel serialConsistency;
+		int fetchSize;
+		Boolean idempotent;
+		long speculativeDelayMs;
+		int speculativeMaxExecutions;
+
+		Profile(String name) throws BackendException {
+			String prefix = "profile." + name + ".";
+			consistency = enumProperty(ConsistencyLevel.class, prefix + "consistency");
+			serialConsistency = enumProperty(ConsistencyLevel.class, prefix + "serial_consistency");
+			fetchSize = numberProperty(prefix + "fetch_size", -1, Integer::valueOf);
+			idempotent = booleanProperty(prefix + "idempotent");
+			speculativeDelayMs = numberProperty(prefix + "speculative_delay_ms", -1, Integer::valueOf);
+			speculativeMaxExecutions = numberProperty(prefix + "speculative_max_executions", 1, Integer::valueOf);
+		}
+	}
+
+	/*
+	 * Same plan as ConstantSpeculativeExecutionPolicy, but the delay and the number
+	 * of executions come from the profile of the statement's PreparedStatement.
+	 */
+	private class PerStatementSpeculativeExecutionPolicy implements SpeculativeExecutionPolicy {
+		@Override
+		public void init(Cluster cluster) {
+		}
+
+		@Override
+		public SpeculativeExecutionPlan newPlan(String loggedKeyspace, Statement statement) {
+			Profile profile = null;
+			if (statement instanceof BoundStatement) {
+				profile = speculativeProfiles.get(((BoundStatement) statement).preparedStatement());
+			}
+			final long delay = profile == null ? -1 : profile.speculativeDelayMs;
+			final int maxExecutions = profile == null ? 0 : profile.speculativeMaxExecutions;
+			return new SpeculativeExecutionPlan() {
+				private final AtomicInteger remaining = new AtomicInteger(maxExecutions);
+
+				@Override
+				public long nextExecution(Host lastQueried) {
+					if (delay < 0 || remaining.getAndDecrement() <= 0) {
+						return -1;
+					}
+					return delay;
+				}
+			};
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
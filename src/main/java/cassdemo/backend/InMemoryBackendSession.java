@@ -0,0 +1,212 @@
+package cassdemo.backend;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cassdemo.Statistics;
+import cassdemo.ToStringer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Keeps lists and proposals in the client's memory. Conflicts are resolved the
+ * same way as in CassandraBackendSession: a place is taken only if the proposal
+ * is older than the one holding it, and the preempted student is reapplied.
+ *
+ * Every list guards its own slot arrays, so students proposing into different
+ * lists never contend. Used to run the stress commands without a cluster.
+ */
+
+public class InMemoryBackendSession implements BackendSession {
+
+	private static final Logger logger = LoggerFactory.getLogger(InMemoryBackendSession.class);
+	private Statistics statistics;
+
+	private final ConcurrentHashMap<String, ListState> lists = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, ConcurrentHashMap<Integer, Proposal>> proposals = new ConcurrentHashMap<>();
+
+	public InMemoryBackendSession(Statistics statistics) {
+		this.statistics = statistics;
+		logger.info("Using in-memory backend");
+	}
+
+	@Override
+	public String selectAllLists() {
+		StringBuilder sb = new StringBuilder();
+		for (ListState list : lists.values()) {
+			sb.append(ToStringer.listToString(list.name, list.maxSize, list.students()) + "\n");
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public String selectAllProposals() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(ToStringer.proposalsHeader());
+		for (Map.Entry<String, ConcurrentHashMap<Integer, Proposal>> toList : proposals.entrySet()) {
+			for (Map.Entry<Integer, Proposal> proposal : toList.getValue().entrySet()) {
+				sb.append(ToStringer.proposalToString(proposal.getKey(), toList.getKey(),
+						proposal.getValue().placementsList()) + "\n");
+			}
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public void insertList(String name, int max_size) {
+		lists.put(name, new ListState(name, max_size));
+		logger.info("List " + name + " upserted");
+	}
+
+	@Override
+	public void insertProposal(int studentId, String listName, List<Integer> placements) {
+		Proposal proposal = new Proposal(placements, System.currentTimeMillis());
+		includeProposalIntoList(studentId, listName, proposal.placements, proposal.sendingTime);
+		// like INSERT ... IF NOT EXISTS, the first proposal of a student is kept
+		proposals.computeIfAbsent(listName, k -> new ConcurrentHashMap<>()).putIfAbsent(studentId, proposal);
+
+		// guarded, so that nothing is built or boxed on this hot path while debug is off
+		if (logger.isDebugEnabled()) {
+			logger.debug("Student: {} made proposal into: {}", studentId, listName);
+		}
+	}
+
+	public void includeProposalIntoList(int student_id, String listName, int[] placements, long timestamp) {
+		ListState list = lists.get(listName);
+		if (list == null) {
+			return; // conditional update of a missing row is never applied
+		}
+		for (int placement : placements) {
+			long replaced = list.take(placement, student_id, timestamp);
+			if (replaced == ListState.HELD) {
+				return; // this student already holds this place
+			}
+			if (replaced == ListState.REJECTED) {
+				continue;
+			}
+			if (replaced != ListState.FREE) {
+				reapplyProposal((int) replaced, listName);
+				statistics.increasePreemptionCount();
+			}
+			return;
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("Applied {}'s proposal into {}", student_id, listName);
+		}
+	}
+
+	@Override
+	public void deleteAllLists() {
+		lists.clear();
+		logger.info("All lists deleted");
+	}
+
+	@Override
+	public void reapplyProposalsToOneList(String listName) {
+		Map<Integer, Proposal> toList = proposals.get(listName);
+		if (toList == null) {
+			return;
+		}
+		for (int studentId : toList.keySet()) {
+			reapplyProposal(studentId, listName);
+		}
+	}
+
+	@Override
+	public void reapplyProposal(int student_id, String listName) {
+		Map<Integer, Proposal> toList = proposals.get(listName);
+		Proposal proposal = toList == null ? null : toList.get(student_id);
+		if (proposal != null) {
+			includeProposalIntoList(student_id, listName, proposal.placements, proposal.sendingTime);
+		}
+	}
+
+	@Override
+	public void increaseBackendExcepionCount() {
+		statistics.increaseBackendExcepionCount();
+	}
+
+	private static class Proposal {
+		final int[] placements;
+		final long sendingTime;
+
+		Proposal(List<Integer> placements, long sendingTime) {
+			this.placements = new int[placements.size()];
+			for (int i = 0; i < this.placements.length; ++i) {
+				this.placements[i] = placements.get(i);
+			}
+			this.sendingTime = sendingTime;
+		}
+
+		List<Integer> placementsList() {
+			List<Integer> ret = new ArrayList<>(placements.length);
+			for (int placement : placements) {
+				ret.add(placement);
+			}
+			return ret;
+		}
+	}
+
+	private static class ListState {
+		// results of take() which are not ids of a preempted student
+		static final long FREE = Long.MAX_VALUE;
+		static final long HELD = Long.MAX_VALUE - 1;
+		static final long REJECTED = Long.MIN_VALUE;
+
+		// timestamp of an empty place, same as in initialTimestampMap of the Cassandra path
+		private static final long EMPTY = Long.MAX_VALUE;
+
+		final String name;
+		final int maxSize;
+		// indexed by position - 1
+		private final int[] students;
+		private final long[] timestamps;
+
+		ListState(String name, int maxSize) {
+			this.name = name;
+			this.maxSize = maxSize;
+			this.students = new int[maxSize];
+			this.timestamps = new long[maxSize];
+			Arrays.fill(timestamps, EMPTY);
+		}
+
+		/*
+		 * Counterpart of SELECT_OCCUPIER followed by INCLUDE_PROPOSAL_INTO_LIST,
+		 * done atomically. Returns the preempted student, FREE if the place was
+		 * empty, HELD if the student already holds it or REJECTED if it is out of
+		 * range or taken by an older proposal.
+		 */
+		synchronized long take(int position, int studentId, long timestamp) {
+			int i = position - 1;
+			if (i < 0 || i >= maxSize) {
+				return REJECTED;
+			}
+			boolean occupied = timestamps[i] != EMPTY;
+			if (occupied && students[i] == studentId) {
+				return HELD;
+			}
+			if (timestamps[i] <= timestamp) {
+				return REJECTED;
+			}
+			long replaced = occupied ? students[i] : FREE;
+			students[i] = studentId;
+			timestamps[i] = timestamp;
+			return replaced;
+		}
+
+		synchronized Map<Integer, Integer> students() {
+			TreeMap<Integer, Integer> ret = new TreeMap<>();
+			for (int i = 0; i < maxSize; ++i) {
+				if (timestamps[i] != EMPTY) {
+					ret.put(i + 1, students[i]);
+				}
+			}
+			return ret;
+		}
+	}
+}
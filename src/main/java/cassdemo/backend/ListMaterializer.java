@@ -0,0 +1,254 @@
+package cassdemo.backend;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+
+import cassdemo.ToStringer;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/*
+ * Folds the proposal events of EventLogBackendSession into list placements.
+ *
+ * Events are read in (sending_time, student_id) order, so an older proposal is
+ * always folded first and simply takes its most preferred free place; nothing
+ * ever has to be preempted. A checkpoint stores the placements together with the
+ * position of the last folded event, so the next fold only reads the events
+ * after it. A new list starts at its creation time, so events sent to an earlier
+ * list with the same name are only placed by reapply, as stored proposals are in
+ * the Cassandra path.
+ *
+ * Checkpoints only include events older than the settle time. An event which
+ * reaches the log with a sending_time before the checkpoint position (clock skew,
+ * a slow client) would never be folded, so the settle time should be larger than
+ * any such delay. Checkpoints are written without LWTs, so only one client
+ * should run the materializer at a time.
+ *
+ * Events and checkpoints must be read at a consistency that overlaps the one
+ * they are written with (LOCAL_QUORUM in config.properties). A fold reading a
+ * replica that missed an event would move the checkpoint past it, and a
+ * checkpoint read from a replica that missed reset() would undo the reset.
+ */
+
+public class ListMaterializer {
+
+	private static final Logger logger = LoggerFactory.getLogger(ListMaterializer.class);
+
+	private static final Date LOG_START = new Date(0);
+	private static final Date LOG_END = new Date(Long.MAX_VALUE);
+
+	private Session session;
+	private ExecutionProfiles profiles;
+	private ConcurrencyLimiter limiter;
+	private long settleMillis;
+
+	private static PreparedStatement SELECT_ALL_FROM_CHECKPOINTS;
+	private static PreparedStatement SELECT_FROM_CHECKPOINTS;
+	private static PreparedStatement INSERT_INTO_CHECKPOINTS;
+	private static PreparedStatement DELETE_ALL_FROM_CHECKPOINTS;
+	private static PreparedStatement SELECT_EVENTS_BETWEEN;
+
+	public ListMaterializer(Session session, ExecutionProfiles profiles, ConcurrencyLimiter limiter,
+			long settleMillis) throws BackendException {
+		this.session = session;
+		this.profiles = profiles;
+		this.limiter = limiter;
+		this.settleMillis = settleMillis;
+		prepareStatements();
+	}
+
+	private void prepareStatements() throws BackendException {
+		try {
+			SELECT_ALL_FROM_CHECKPOINTS = profiles.prepare(session, "select_all_from_list_checkpoints",
+					"SELECT * FROM list_checkpoints;");
+			SELECT_FROM_CHECKPOINTS = profiles.prepare(session, "select_from_list_checkpoints",
+					"SELECT * FROM list_checkpoints where name = ?;");
+			INSERT_INTO_CHECKPOINTS = profiles.prepare(session, "insert_into_list_checkpoints",
+					"INSERT INTO list_checkpoints (name, max_size, start_time, students, last_time, last_student)" +
+							"VALUES (?, ?, ?, ?, ?, ?);");
+			DELETE_ALL_FROM_CHECKPOINTS = profiles.prepare(session, "delete_all_from_list_checkpoints",
+					"TRUNCATE list_checkpoints;");
+			SELECT_EVENTS_BETWEEN = profiles.prepare(session, "select_list_events_between",
+					"SELECT * FROM list_events where list_name = ? and sending_time >= ? and sending_time <= ?;");
+		} catch (Exception e) {
+			throw new BackendException("Could not prepare materializer statements. " + e.getMessage() + ".", e);
+		}
+	}
+
+	/*
+	 * Folds settled events of every list and stores new checkpoints.
+	 */
+	public synchronized void checkpointAll() throws BackendException {
+		Date settled = new Date(System.currentTimeMillis() - settleMillis);
+		limiter.forEachRow(execute(profiles.bind(SELECT_ALL_FROM_CHECKPOINTS)), row -> {
+			ListState list = new ListState(row);
+			if (fold(list, settled, null)) {
+				writeCheckpoint(list);
+			}
+		});
+	}
+
+	/*
+	 * Starts the list from scratch, ignoring events sent before position.
+	 */
+	public synchronized void reset(String name, int maxSize, Date position) throws BackendException {
+		writeCheckpoint(new ListState(name, maxSize, position));
+	}
+
+	/*
+	 * Folds the log of the list again from its very beginning, up to the
+	 * checkpoint position. With studentId == null every event is folded, like
+	 * "reapply all"; otherwise only the events of the students placed so far and
+	 * of studentId, like reapplying one stored proposal.
+	 */
+	public synchronized void reapply(String name, Integer studentId) throws BackendException {
+		BoundStatement bs = profiles.bind(SELECT_FROM_CHECKPOINTS);
+		bs.bind().setString(0, name);
+		Row row = execute(bs).one();
+		if (row == null) {
+			return;
+		}
+		ListState current = new ListState(row);
+		Set<Integer> studentIds = null;
+		if (studentId != null) {
+			studentIds = new HashSet<>(current.placed);
+			studentIds.add(studentId);
+		}
+		ListState list = new ListState(name, current.maxSize, LOG_START);
+		fold(list, current.lastTime, studentIds);
+		// the events after the checkpoint are still left to the next checkpoint
+		list.lastTime = current.lastTime;
+		list.lastStudent = current.lastStudent;
+		writeCheckpoint(list);
+		logger.info("Proposals reapplied to " + name + " from its event log");
+	}
+
+	public synchronized void deleteAll() throws BackendException {
+		execute(profiles.bind(DELETE_ALL_FROM_CHECKPOINTS));
+	}
+
+	/*
+	 * Prints the checkpoints, with withTail also folding the events after them
+	 * (not stored) to show the current placements.
+	 */
+	public String listsToString(boolean withTail) throws BackendException {
+		StringBuilder sb = new StringBuilder();
+		limiter.forEachRow(execute(profiles.bind(SELECT_ALL_FROM_CHECKPOINTS)), row -> {
+			ListState list = new ListState(row);
+			if (withTail) {
+				fold(list, LOG_END, null);
+			}
+			sb.append(ToStringer.listToString(list.name, list.maxSize, list.students) + "\n");
+		});
+		return sb.toString();
+	}
+
+	/*
+	 * Folds events after the list's position up to until, only those of
+	 * studentIds unless it is null. Returns whether the position moved.
+	 */
+	private boolean fold(ListState list, Date until, Set<Integer> studentIds) throws BackendException {
+		if (list.lastTime.after(until)) {
+			return false;
+		}
+		BoundStatement bs = profiles.bind(SELECT_EVENTS_BETWEEN);
+		bs.bind().setString(0, list.name).setTimestamp(1, list.lastTime).setTimestamp(2, until);
+
+		Date startTime = list.lastTime;
+		int startStudent = list.lastStudent;
+		limiter.forEachRow(execute(bs), event -> {
+			Date sendingTime = event.getTimestamp("sending_time");
+			int studentId = event.getInt("student_id");
+			if (sendingTime.equals(list.lastTime) && studentId <= list.lastStudent) {
+				return; // folded before
+			}
+			if (studentIds == null || studentIds.contains(studentId)) {
+				list.apply(studentId, event.getList("placements", Integer.class));
+			}
+			list.lastTime = sendingTime;
+			list.lastStudent = studentId;
+		});
+		return !list.lastTime.equals(startTime) || list.lastStudent != startStudent;
+	}
+
+	private void writeCheckpoint(ListState list) throws BackendException {
+		BoundStatement bs = profiles.bind(INSERT_INTO_CHECKPOINTS);
+		bs.bind().setString(0, list.name).setInt(1, list.maxSize).setTimestamp(2, list.startTime)
+				.setMap(3, list.students).setTimestamp(4, list.lastTime).setInt(5, list.lastStudent);
+		execute(bs);
+		logger.debug("Checkpoint of " + list.name + " stored at " + list.lastTime.getTime());
+	}
+
+	/*
+	 * Returns the first page only, rows are read with limiter.forEachRow().
+	 */
+	private ResultSet execute(BoundStatement bs) throws BackendException {
+		try {
+			return limiter.execute(session, bs);
+		} catch (Exception e) {
+			throw new BackendException("Could not materialize lists. " + e.getMessage() + ".", e);
+		}
+	}
+
+	private static class ListState {
+		final String name;
+		final int maxSize;
+		final Date startTime;
+		final Map<Integer, Integer> students;
+		final Set<Integer> placed;
+		Date lastTime;
+		int lastStudent;
+
+		/*
+		 * An empty list, placing only events sent at startTime or later.
+		 */
+		ListState(String name, int maxSize, Date startTime) {
+			this.name = name;
+			this.maxSize = maxSize;
+			this.startTime = startTime;
+			this.students = new TreeMap<>();
+			this.placed = new HashSet<>();
+			this.lastTime = startTime;
+			this.lastStudent = Integer.MIN_VALUE;
+		}
+
+		ListState(Row checkpoint) {
+			this(checkpoint.getString("name"), checkpoint.getInt("max_size"),
+					checkpoint.isNull("start_time") ? LOG_START : checkpoint.getTimestamp("start_time"));
+			students.putAll(checkpoint.getMap("students", Integer.class, Integer.class));
+			placed.addAll(students.values());
+			if (!checkpoint.isNull("last_time")) {
+				lastTime = checkpoint.getTimestamp("last_time");
+				lastStudent = checkpoint.getInt("last_student");
+			}
+		}
+
+		/*
+		 * Events come oldest first, so the student gets the most preferred place
+		 * which is still free. A student who already holds a place keeps it.
+		 */
+		void apply(int studentId, List<Integer> placements) {
+			if (placed.contains(studentId)) {
+				return;
+			}
+			for (int placement : placements) {
+				if (placement >= 1 && placement <= maxSize && !students.containsKey(placement)) {
+					students.put(placement, studentId);
+					placed.add(studentId);
+					return;
+				}
+			}
+		}
+	}
+}